@@ -1,5 +1,7 @@
 import java.io.File;
 import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.UncheckedIOException;
 import java.util.*;
 import java.util.stream.IntStream;
 
@@ -16,6 +18,12 @@ public class Nonogram {
     int[][] rows;
     int largestColSize;
     int largestRowSize;
+    int parsedColCount; // number of column lines found in the file, which may not match width
+    int parsedRowCount; // number of row lines found in the file, which may not match height
+    List<String> unparsedLines = new ArrayList<String>(); // columns and rows that weren't all numbers, reported by validate()
+    long lineSolveCount; // number of times solveNonogram has called solveColOrRow
+    long passCount; // number of times solveNonogram has looped over the columns and rows
+    static long isSolvableCount; // number of times isSolvable has been called, across all nonograms
     static String filledIn = "O";
     static String crossedOut = "X";
     /**
@@ -25,8 +33,23 @@ public class Nonogram {
      * inner (right) array is cols
      */
     String[][] state; //
+    /**
+     * Off-heap alternative to state for very large nonograms, null when state is used instead
+     */
+    OffHeapGrid grid;
 
     public Nonogram(File f) {
+        this(f, false, null);
+    }
+
+    /**
+     * Creates a nonogram whose state may be kept off the Java heap
+     * @param f the .nngm file to parse
+     * @param offHeap true to keep the state in an OffHeapGrid instead of a String[][]
+     * @param gridFile if offHeap is true and this is not null, the file backing the OffHeapGrid
+     * @throws UncheckedIOException if gridFile cannot be mapped
+     */
+    public Nonogram(File f, boolean offHeap, File gridFile) {
         largestColSize = 0;
         largestRowSize = 0;
         try (Scanner scan = new Scanner(f)) {
@@ -47,27 +70,44 @@ public class Nonogram {
                 String[] lineArr;
                 switch (parseState) {
                     case 0:
+                        // A missing or invalid width/height leaves width and height at 0, reported by validate()
                         lineArr = line.split(",");
-                        width = Integer.parseInt(lineArr[0]);
-                        height = Integer.parseInt(lineArr[1]);
+                        if (lineArr.length != 2) { break; }
+                        int parsedWidth;
+                        int parsedHeight;
+                        try {
+                            parsedWidth = Integer.parseInt(lineArr[0].trim());
+                            parsedHeight = Integer.parseInt(lineArr[1].trim());
+                        } catch (NumberFormatException e) {
+                            break;
+                        }
+                        if (parsedWidth <= 0 || parsedHeight <= 0) { break; }
+                        width = parsedWidth;
+                        height = parsedHeight;
                         cols = new int[width][];
                         rows = new int[height][];
                         break;
                     case 1:
-                        lineArr = line.split(",");
-                        cols[colIndex] = new int[lineArr.length];
-                        for (int i = 0; i < lineArr.length; i++) {
-                            cols[colIndex][i] = Integer.parseInt(lineArr[i]);
+                        parsedColCount++;
+                        if (colIndex >= width) { break; } // extra column, reported by validate()
+                        cols[colIndex] = parseColOrRow(line);
+                        if (cols[colIndex] == null) {
+                            unparsedLines.add("Column " + colIndex + " (" + line + ")");
+                            colIndex++;
+                            break;
                         }
                         int thisColSize = getColOrRowSize(cols[colIndex], false);
                         if (thisColSize > largestColSize) {largestColSize = thisColSize;}
                         colIndex++;
                         break;
                     case 2:
-                        lineArr = line.split(",");
-                        rows[rowIndex] = new int[lineArr.length];
-                        for (int i = 0; i < lineArr.length; i++) {
-                            rows[rowIndex][i] = Integer.parseInt(lineArr[i]);
+                        parsedRowCount++;
+                        if (rowIndex >= height) { break; } // extra row, reported by validate()
+                        rows[rowIndex] = parseColOrRow(line);
+                        if (rows[rowIndex] == null) {
+                            unparsedLines.add("Row " + rowIndex + " (" + line + ")");
+                            rowIndex++;
+                            break;
                         }
                         int thisRowSize = getColOrRowSize(rows[rowIndex], true);
                         if (thisRowSize > largestRowSize) {largestRowSize = thisRowSize;}
@@ -82,12 +122,65 @@ public class Nonogram {
             System.out.println("Didn't find file " + f + " while creating Nonogram.");
             e.printStackTrace();
         }
+        if (offHeap) {
+            if (gridFile != null) {
+                // No fallback to memory, since a grid file is only needed when the grid doesn't fit in memory
+                try {
+                    grid = new OffHeapGrid(width, height, gridFile);
+                } catch (IOException e) {
+                    throw new UncheckedIOException("Couldn't map grid file " + gridFile, e);
+                }
+            } else {
+                grid = new OffHeapGrid(width, height);
+            }
+        } else {
+            state = new String[height][width];
+            for (int i = 0; i < state.length; i++) {
+                Arrays.fill(state[i], " ");
+            }
+        }
+    }
+
+    /**
+     * Creates a copy of other with the same columns and rows, and a blank state.
+     * Lets a nonogram be solved again without parsing its file again.
+     * If other keeps its state in an OffHeapGrid, so does the copy, in direct buffers rather than a file.
+     * @param other the nonogram to copy
+     */
+    public Nonogram(Nonogram other) {
+        width = other.width;
+        height = other.height;
+        cols = other.cols;
+        rows = other.rows;
+        largestColSize = other.largestColSize;
+        largestRowSize = other.largestRowSize;
+        parsedColCount = other.parsedColCount;
+        parsedRowCount = other.parsedRowCount;
+        unparsedLines = other.unparsedLines;
+        if (other.grid != null) {
+            grid = new OffHeapGrid(width, height);
+            return;
+        }
         state = new String[height][width];
         for (int i = 0; i < state.length; i++) {
             Arrays.fill(state[i], " ");
         }
     }
 
+    // Parses a line of comma-separated numbers, or returns null if any of them isn't a number
+    private static int[] parseColOrRow(String line) {
+        String[] lineArr = line.split(",", -1);
+        int[] cr = new int[lineArr.length];
+        try {
+            for (int i = 0; i < lineArr.length; i++) {
+                cr[i] = Integer.parseInt(lineArr[i].trim());
+            }
+        } catch (NumberFormatException e) {
+            return null;
+        }
+        return cr;
+    }
+
     public void print() {
         System.out.println("Width is " + width + " and Height is " + height);
         System.out.println("Largest Col has " + largestColSize + " and largest Row has " + largestRowSize);
@@ -139,7 +232,7 @@ public class Nonogram {
             }
 
             //Add state grid
-            for (String rowVal : state[i]) {
+            for (String rowVal : getRow(i)) {
                 if (printCrossedOut) {
                     sb.append(rowVal);
                 } else {
@@ -171,6 +264,129 @@ public class Nonogram {
         return count <= length;
     }
 
+    /**
+     * Cheaply checks that this nonogram could have a solution, without attempting to solve it.
+     * Checks that there is one column per width and one row per height,
+     * that the column and row totals are equal, that every column and row fits,
+     * then does a single pass of line overlaps to find any point that a row and column disagree on.
+     * Does not modify state.
+     * @return a verdict listing every problem found, which is valid if none were found
+     */
+    public NonogramVerdict validate() {
+        NonogramVerdict verdict = new NonogramVerdict();
+
+        if (width <= 0 || height <= 0 || cols == null || rows == null) {
+            verdict.addProblem(NonogramVerdict.Check.HEADER, "Missing or invalid width and height");
+            return verdict; // the other checks need the width and height
+        }
+        if (parsedColCount != width) {
+            verdict.addProblem(NonogramVerdict.Check.LINE_COUNT, "Found " + parsedColCount + " columns but width is " + width);
+        }
+        if (parsedRowCount != height) {
+            verdict.addProblem(NonogramVerdict.Check.LINE_COUNT, "Found " + parsedRowCount + " rows but height is " + height);
+        }
+        if (!verdict.isValid()) { return verdict; } // the other checks need every column and row
+
+        for (String unparsed : unparsedLines) {
+            verdict.addProblem(NonogramVerdict.Check.CLUE_FORMAT, unparsed + " is not a comma-separated list of numbers");
+        }
+        for (int col = 0; col < cols.length; col++) {
+            if (cols[col] != null && !isColOrRowFormatValid(cols[col])) {
+                verdict.addProblem(NonogramVerdict.Check.CLUE_FORMAT, "Column " + col + " (" + intArrString(cols[col], ",") + ") has a negative number, or a 0 with other numbers");
+            }
+        }
+        for (int row = 0; row < rows.length; row++) {
+            if (rows[row] != null && !isColOrRowFormatValid(rows[row])) {
+                verdict.addProblem(NonogramVerdict.Check.CLUE_FORMAT, "Row " + row + " (" + intArrString(rows[row], ",") + ") has a negative number, or a 0 with other numbers");
+            }
+        }
+        if (!verdict.isValid()) { return verdict; } // totals, fits and overlaps assume every number is positive
+
+        long colTotal = 0;
+        long rowTotal = 0;
+        for (int[] col : cols) { colTotal += sumIntArr(col); }
+        for (int[] row : rows) { rowTotal += sumIntArr(row); }
+        if (colTotal != rowTotal) {
+            verdict.addProblem(NonogramVerdict.Check.CLUE_TOTALS, "Columns fill in " + colTotal + " points but rows fill in " + rowTotal);
+        }
+
+        for (int col = 0; col < cols.length; col++) {
+            if (!isRowOrColValid(cols[col], height)) {
+                verdict.addProblem(NonogramVerdict.Check.LINE_FITS, "Column " + col + " (" + intArrString(cols[col], ",") + ") does not fit in height " + height);
+            }
+        }
+        for (int row = 0; row < rows.length; row++) {
+            if (!isRowOrColValid(rows[row], width)) {
+                verdict.addProblem(NonogramVerdict.Check.LINE_FITS, "Row " + row + " (" + intArrString(rows[row], ",") + ") does not fit in width " + width);
+            }
+        }
+        if (!verdict.isValid()) { return verdict; } // overlaps assume every line fits
+
+        // Points each row forces to be filledIn or crossedOut
+        BitSet[] rowFilledIn = new BitSet[height];
+        BitSet[] rowCrossedOut = new BitSet[height];
+        for (int row = 0; row < rows.length; row++) {
+            String[] rowPass = overlapColOrRow(rows[row], width);
+            rowFilledIn[row] = new BitSet(width);
+            rowCrossedOut[row] = new BitSet(width);
+            for (int col = 0; col < width; col++) {
+                if (rowPass[col].equals(filledIn)) {
+                    rowFilledIn[row].set(col);
+                } else if (rowPass[col].equals(crossedOut)) {
+                    rowCrossedOut[row].set(col);
+                }
+            }
+        }
+        for (int col = 0; col < cols.length; col++) {
+            String[] colPass = overlapColOrRow(cols[col], height);
+            for (int row = 0; row < height; row++) {
+                if ((rowFilledIn[row].get(col) && colPass[row].equals(crossedOut))
+                        || (rowCrossedOut[row].get(col) && colPass[row].equals(filledIn))) {
+                    verdict.addProblem(NonogramVerdict.Check.CONTRADICTION, "Row " + row + " and column " + col + " disagree on point (" + row + ", " + col + ")");
+                }
+            }
+        }
+        return verdict;
+    }
+
+    /**
+     * Finds the points of an empty col or row that are the same in every solution,
+     * by comparing each number placed as early as possible with it placed as late as possible.
+     * Assumes cr fits within length.
+     * @param cr int array that defines what points are in this col or row
+     * @param length the width or height of the col or row
+     * @return a new array where each point is filledIn, crossedOut, or " " if it could be either
+     */
+    private static String[] overlapColOrRow(int[] cr, int length) {
+        String[] crState = new String[length];
+        Arrays.fill(crState, crossedOut);
+        if (cr.length == 1 && cr[0] == 0) { return crState; } // Row of 0
+
+        int slack = length - (sumIntArr(cr) + cr.length - 1); // how far every number can move from its earliest place
+        int earliest = 0; // earliest start index of the current number
+        for (Integer i : cr) {
+            // Anywhere this number could be is not crossedOut
+            for (int j = earliest; j < earliest + slack + i; j++) {
+                crState[j] = " ";
+            }
+            // Where the earliest and latest placements overlap is filledIn
+            for (int j = earliest + slack; j < earliest + i; j++) {
+                crState[j] = filledIn;
+            }
+            earliest += i + 1;
+        }
+        return crState;
+    }
+
+    // A col or row is either a single 0, or one or more positive numbers
+    private static boolean isColOrRowFormatValid(int[] cr) {
+        if (cr.length == 1 && cr[0] == 0) { return true; }
+        for (int i : cr) {
+            if (i <= 0) { return false; }
+        }
+        return true;
+    }
+
     private static int getColOrRowSize(int[] cr, boolean isRow) {
         // The size of a column or row, for the toString method
         // For columns, it is the length of the cr array
@@ -194,18 +410,14 @@ public class Nonogram {
 
         // Check rows
         for (int row = 0; row < rows.length; row++) {
-            if (!colOrRowIsFullySolved(rows[row], state[row])) {
+            if (!colOrRowIsFullySolved(rows[row], getRow(row))) {
                 return false;
             }
         }
 
         // Check columns
         for (int col = 0; col < cols.length; col++) {
-            String[] colState = new String[height];
-            for (int row = 0; row < rows.length ; row++) { // build the column
-                colState[row] = state[row][col];
-            }
-            if (!colOrRowIsFullySolved(cols[col], colState)) {
+            if (!colOrRowIsFullySolved(cols[col], getCol(col))) {
                 return false;
             }
         }
@@ -353,6 +565,24 @@ public class Nonogram {
      * Prints out the nonogram as it solves it, one step at a time
      */
     public void solveNonogram() {
+        try (Scanner scan = new Scanner(System.in)) {
+            if (!solveNonogram(scan, -1)) {
+                System.out.println("Nothing solved in this loop.");
+                System.exit(1);
+            }
+            System.out.println("\r\n\r\n\r\nNonogram fully solved!\r\n\r\n\r\n");
+            System.out.println(toString(false));
+        }
+    }
+
+    /**
+     * Solves this nonogram by repeatedly solving every unsolved column, then every unsolved row.
+     * Counts each call to solveColOrRow in lineSolveCount and each loop over the columns and rows in passCount.
+     * @param scan if not null, the nonogram is printed after every step and a line is read from scan before continuing
+     * @param maxPasses the most loops over the columns and rows to try, or no limit if negative
+     * @return true if every column and row was solved, false if a loop solved nothing or maxPasses was reached
+     */
+    public boolean solveNonogram(Scanner scan, int maxPasses) {
         Set<Integer> unsolvedCols = new HashSet<Integer>(); // a set of columns that are yet unsolved
         Set<Integer> unsolvedRows = new HashSet<Integer>(); // a set of rows that are yet unsolved
         boolean colOrRowSolved;
@@ -363,66 +593,68 @@ public class Nonogram {
             unsolvedRows.add(i);
         }
 
-        try (Scanner scan = new Scanner(System.in)) {
-            // while there are elements in unsolvedCols or unsolvedRows
-            while (!unsolvedCols.isEmpty() || !unsolvedRows.isEmpty()) {
-                colOrRowSolved = false;
-                Set<Integer> colsToRemove = new HashSet<Integer>();
-                Set<Integer> rowsToRemove = new HashSet<Integer>();
-                System.out.println("unsolved cols and rows are");
-                printSet(unsolvedCols);
-                printSet(unsolvedRows);
-
-
-                // loop through all unsolved cols and try to solve them
-                for (Integer i : unsolvedCols) {
-                    String[] currCol = getCol(i);
-                    if (colOrRowIsFullySolved(cols[i], currCol)) { // Break if this col is already solved
-                        colsToRemove.add(i);
-                        break;
-                    }
-                    String[] newCol = solveColOrRow(cols[i], currCol);
+        // while there are elements in unsolvedCols or unsolvedRows
+        while (!unsolvedCols.isEmpty() || !unsolvedRows.isEmpty()) {
+            if (maxPasses >= 0 && passCount >= maxPasses) { return false; }
+            passCount++;
+            colOrRowSolved = false;
+            Set<Integer> colsToRemove = new HashSet<Integer>();
+            Set<Integer> rowsToRemove = new HashSet<Integer>();
+            System.out.println("unsolved cols and rows are");
+            printSet(unsolvedCols);
+            printSet(unsolvedRows);
+
 
-                    if (newCol.length > 0) { // solved the column!
-                        colOrRowSolved = true;
-                        setCol(i, newCol);
-                        if (colOrRowIsFullySolved(cols[i], newCol)) { colsToRemove.add(i); }
+            // loop through all unsolved cols and try to solve them
+            for (Integer i : unsolvedCols) {
+                String[] currCol = getCol(i);
+                if (colOrRowIsFullySolved(cols[i], currCol)) { // Break if this col is already solved
+                    colsToRemove.add(i);
+                    break;
+                }
+                String[] newCol = solveColOrRow(cols[i], currCol);
+                lineSolveCount++;
+
+                if (newCol.length > 0) { // solved the column!
+                    colOrRowSolved = true;
+                    setCol(i, newCol);
+                    if (colOrRowIsFullySolved(cols[i], newCol)) { colsToRemove.add(i); }
+                    if (scan != null) {
                         System.out.println("\r\n\r\n\r\n~~~~~~~~~~~~\r\n\r\n\r\n");
                         System.out.println(toString(true));
                         scan.nextLine(); //TODO remove when I use time-based printing
                     }
                 }
+            }
 
-                // loop through all unsolved rows and try to solve them
-                for (Integer i : unsolvedRows) {
-                    String[] currRow = state[i];
-                    if (colOrRowIsFullySolved(rows[i], currRow)) { // Break if this row is already solved
-                        rowsToRemove.add(i);
-                        break;
-                    }
-                    String[] newRow = solveColOrRow(rows[i], currRow);
-
-                    if (newRow.length > 0) {
-                        colOrRowSolved = true;
-                        for (int j = 0; j < newRow.length; j++) { currRow[j] = newRow[j]; }
-                        if(colOrRowIsFullySolved(rows[i], newRow)) { rowsToRemove.add(i); }
+            // loop through all unsolved rows and try to solve them
+            for (Integer i : unsolvedRows) {
+                String[] currRow = getRow(i);
+                if (colOrRowIsFullySolved(rows[i], currRow)) { // Break if this row is already solved
+                    rowsToRemove.add(i);
+                    break;
+                }
+                String[] newRow = solveColOrRow(rows[i], currRow);
+                lineSolveCount++;
+
+                if (newRow.length > 0) {
+                    colOrRowSolved = true;
+                    setRow(i, newRow);
+                    if(colOrRowIsFullySolved(rows[i], newRow)) { rowsToRemove.add(i); }
+                    if (scan != null) {
                         System.out.println("\r\n\r\n\r\n~~~~~~~~~~~~\r\n\r\n\r\n");
                         System.out.println(toString(true));
                         scan.nextLine(); //TODO remove when I use time-based printing
                     }
                 }
+            }
 
-                unsolvedCols.removeAll(colsToRemove);
-                unsolvedRows.removeAll(rowsToRemove);
+            unsolvedCols.removeAll(colsToRemove);
+            unsolvedRows.removeAll(rowsToRemove);
 
-                if (!colOrRowSolved) {
-                    System.out.println("Nothing solved in this loop.");
-                    System.exit(1);
-                }
-            }
-            System.out.println("\r\n\r\n\r\nNonogram fully solved!\r\n\r\n\r\n");
-            System.out.println(toString(false));
+            if (!colOrRowSolved) { return false; }
         }
+        return true;
     }
 
     /**
@@ -489,7 +721,6 @@ public class Nonogram {
         System.out.println("");
     }
 
-    // TODO REMOVE BELOW 2 WHEN DONE TESTING
     private static String intArrString(int[] arr, String delim) {
         String s = "";
         for (int i = 0; i < arr.length; i++) {
@@ -501,6 +732,7 @@ public class Nonogram {
         return s;
     }
 
+    // TODO REMOVE WHEN DONE TESTING
     private static void printSet(Set<Integer> s) {
         for (Integer o : s) {
             System.out.print(o + " ");
@@ -516,8 +748,34 @@ public class Nonogram {
         return sum;
     }
 
-    // Returns the colNum column of state as a string array
+    // Returns a copy of the rowNum row of state as a string array, use setRow to change the row
+    public String[] getRow(int rowNum) {
+        if (grid != null) {
+            return grid.getRow(rowNum);
+        }
+        return Arrays.copyOf(state[rowNum], width);
+    }
+
+    // Sets the rowNum row with the values found in row
+    public void setRow(int rowNum, String[] row) {
+        if (row.length != width) {
+            System.out.println("row array doesn't match width");
+            System.exit(1);
+        }
+        if (grid != null) {
+            grid.setRow(rowNum, row);
+            return;
+        }
+        for (int col = 0; col < width; col++) {
+            state[rowNum][col] = row[col];
+        }
+    }
+
+    // Returns a copy of the colNum column of state as a string array, use setCol to change the column
     public String[] getCol(int colNum) {
+        if (grid != null) {
+            return grid.getCol(colNum);
+        }
         int index = 0;
         String[] col = new String[height];
         for (int row = 0; row < state.length; row++) {
@@ -533,6 +791,10 @@ public class Nonogram {
             System.out.println("col array doesn't match height");
             System.exit(1);
         }
+        if (grid != null) {
+            grid.setCol(colNum, col);
+            return;
+        }
         for (int row = 0; row < state.length; row++) {
             state[row][colNum] = col[row];
         }
@@ -590,6 +852,7 @@ public class Nonogram {
      * @return true if we can make a solution from crState, false otherwise.
      */
     public static boolean isSolvable(int[] cr, String[] crState) {
+        isSolvableCount++;
         int[] crPosition = new int[cr.length]; // each int in this array is the leftmost index of where the number in same index in cr starts in crState, meaning crPosition values is index for crState
         int firstOpenIndex = 0; // index of first place in crState that is open
         while (firstOpenIndex < crState.length && crState[firstOpenIndex].equals(crossedOut)) { firstOpenIndex++; }
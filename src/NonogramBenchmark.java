@@ -0,0 +1,465 @@
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.lang.management.ManagementFactory;
+import java.nio.file.Files;
+import java.util.*;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+public class NonogramBenchmark {
+    /**
+     * Performance regression gate for the solver.
+     * Solves a fixed corpus of nonograms, from the real puzzles in nonograms/ (the smoke tier)
+     * up to the generated puzzles in nonograms/bench/ of increasing size, and records the solve time,
+     * number of line solves and isSolvable calls, and bytes allocated for each one.
+     *
+     * Usage:
+     *   java NonogramBenchmark record baseline.json [options]
+     *   java NonogramBenchmark compare baseline.json [options]
+     *   java NonogramBenchmark generate nonograms/bench
+     * Options:
+     *   --tier smoke|all         which puzzles to run, default all
+     *   --time-tolerance 0.3     allowed slowdown in solve time, as a fraction of the baseline
+     *   --min-time-delta-ms 0.1  slowdowns in solve time smaller than this are treated as noise
+     *   --count-tolerance 0      allowed increase in line solves and isSolvable calls, as a fraction of the baseline
+     *   --alloc-tolerance 0.25   allowed increase in bytes allocated, as a fraction of the baseline
+     *   --retries 2              times compare runs the corpus again to confirm a regression,
+     *                            record always runs the corpus this many extra times
+     * compare exits with status 1 if any puzzle is slower than its baseline by more than the tolerances,
+     * or if any puzzle in the baseline wasn't run.
+     * A slowdown of the whole machine can make one run slow, so record keeps the fastest time and fewest bytes
+     * of every run, and compare only reports a regression that is still there after every retry.
+     * Timings depend on which puzzles warmed up the JIT, so the baseline records its tier
+     * and compare refuses to run a different tier against it.
+     * generate rewrites the generated puzzles, which changes the corpus, so record a new baseline after it.
+     */
+
+    // Rounds over the whole corpus, so every puzzle is timed with the JIT warmed up by all of them
+    static final int WARMUP_ROUNDS = 20;
+    static final int TIMED_ROUNDS = 30;
+    // The solver can loop without making progress, so every solve stops after this many passes
+    static final int MAX_PASSES = 50;
+    static final File BENCH_DIR = new File("nonograms/bench");
+    static final long GENERATED_SEED = 20231019L;
+    static final int[] GENERATED_SIZES = {10, 20, 40, 80, 160};
+    // Candidate puzzles tried at each number of knocked out points before trying fewer
+    static final int GENERATE_TRIES = 200;
+
+    static class Result {
+        String name;
+        long timeNanos; // fastest over TIMED_ROUNDS
+        long lineSolves;
+        long isSolvableCalls;
+        long passes;
+        long allocatedBytes; // fewest over TIMED_ROUNDS, -1 if the JVM can't measure it
+        boolean solved;
+    }
+
+    public static void main(String[] args) throws IOException {
+        if (args.length < 2 || !(args[0].equals("record") || args[0].equals("compare") || args[0].equals("generate"))) {
+            System.out.println("Usage: java NonogramBenchmark record|compare baseline.json [--tier smoke|all]"
+                    + " [--time-tolerance 0.3] [--min-time-delta-ms 0.1] [--count-tolerance 0] [--alloc-tolerance 0.25] [--retries 2]");
+            System.out.println("       java NonogramBenchmark generate nonograms/bench");
+            System.exit(2);
+        }
+        if (args[0].equals("generate")) {
+            generateCorpus(new File(args[1]));
+            return;
+        }
+        File baselineFile = new File(args[1]);
+        String tier = "all";
+        double timeTolerance = 0.3;
+        long minTimeDeltaNanos = 100_000;
+        double countTolerance = 0;
+        double allocTolerance = 0.25;
+        int retries = 2;
+        for (int i = 2; i + 1 < args.length; i += 2) {
+            switch (args[i]) {
+                case "--tier":
+                    tier = args[i + 1];
+                    break;
+                case "--time-tolerance":
+                    timeTolerance = Double.parseDouble(args[i + 1]);
+                    break;
+                case "--min-time-delta-ms":
+                    minTimeDeltaNanos = (long) (Double.parseDouble(args[i + 1]) * 1_000_000);
+                    break;
+                case "--count-tolerance":
+                    countTolerance = Double.parseDouble(args[i + 1]);
+                    break;
+                case "--alloc-tolerance":
+                    allocTolerance = Double.parseDouble(args[i + 1]);
+                    break;
+                case "--retries":
+                    retries = Integer.parseInt(args[i + 1]);
+                    break;
+                default:
+                    System.out.println("Unknown option " + args[i]);
+                    System.exit(2);
+            }
+        }
+
+        if (!tier.equals("smoke") && !tier.equals("all")) {
+            System.out.println("Unknown tier " + tier);
+            System.exit(2);
+        }
+        String baselineJson = null;
+        if (args[0].equals("compare")) {
+            // Check the tier before spending time on the corpus
+            baselineJson = Files.readString(baselineFile.toPath());
+            String baselineTier = tierOf(baselineJson);
+            if (baselineTier == null) {
+                System.out.println("Baseline " + baselineFile + " doesn't say which tier it was recorded for, record a new baseline.");
+                System.exit(2);
+            }
+            if (!tier.equals(baselineTier)) {
+                System.out.println("Baseline " + baselineFile + " was recorded for tier " + baselineTier
+                        + ", not " + tier + ". Compare with --tier " + baselineTier + " or record a new baseline.");
+                System.exit(2);
+            }
+        }
+
+        List<File> files = corpus(tier);
+        List<Result> results = benchmark(files);
+        printResults(results);
+
+        if (args[0].equals("record")) {
+            for (int retry = 0; retry < retries; retry++) {
+                System.out.println("Running again to keep the fastest of " + (retries + 1) + " runs:");
+                keepBest(results, benchmark(files));
+                printResults(results);
+            }
+            Files.writeString(baselineFile.toPath(), toJson(tier, results));
+            System.out.println("Wrote baseline for " + results.size() + " puzzles to " + baselineFile);
+        } else {
+            Map<String, Result> baseline = fromJson(baselineJson);
+            List<String> regressions = compare(baseline, results, timeTolerance, minTimeDeltaNanos, countTolerance, allocTolerance);
+            for (int retry = 0; retry < retries && !regressions.isEmpty(); retry++) {
+                System.out.println("Possible regression, running again to confirm:");
+                for (String s : regressions) {
+                    System.out.println("  " + s);
+                }
+                keepBest(results, benchmark(files));
+                printResults(results);
+                regressions = compare(baseline, results, timeTolerance, minTimeDeltaNanos, countTolerance, allocTolerance);
+            }
+            if (!regressions.isEmpty()) {
+                System.out.println("\r\n!!!!!!!!!!!! PERFORMANCE REGRESSION !!!!!!!!!!!!");
+                for (String s : regressions) {
+                    System.out.println(s);
+                }
+                System.exit(1);
+            }
+            System.out.println("No regressions against " + baselineFile);
+        }
+    }
+
+    // Keeps the fastest time and fewest bytes allocated of results and rerun in results, which are for the same files
+    private static void keepBest(List<Result> results, List<Result> rerun) {
+        for (int i = 0; i < results.size(); i++) {
+            Result r = results.get(i);
+            r.timeNanos = Math.min(r.timeNanos, rerun.get(i).timeNanos);
+            r.allocatedBytes = Math.min(r.allocatedBytes, rerun.get(i).allocatedBytes);
+        }
+    }
+
+    private static void printResults(List<Result> results) {
+        for (Result r : results) {
+            System.out.println(r.name + ": " + (r.timeNanos / 1000) + "us, " + r.lineSolves + " line solves, "
+                    + r.isSolvableCalls + " isSolvable calls, " + r.passes + " passes, "
+                    + r.allocatedBytes + " bytes allocated, " + (r.solved ? "solved" : "not solved"));
+        }
+    }
+
+    /**
+     * Gets the puzzles to benchmark, smallest first.
+     * The smoke tier is the real puzzles, all adds the generated puzzles in BENCH_DIR.
+     * @param tier smoke or all
+     * @return the .nngm files to benchmark
+     */
+    static List<File> corpus(String tier) {
+        List<File> files = new ArrayList<File>();
+        files.add(new File("nonograms/pokeball.nngm"));
+        files.add(new File("nonograms/poochyena.nngm"));
+        if (tier.equals("smoke")) { return files; }
+
+        File[] generated = BENCH_DIR.listFiles((dir, name) -> name.endsWith(".nngm"));
+        if (generated == null || generated.length == 0) {
+            System.out.println("Didn't find any puzzles in " + BENCH_DIR + ", run with --tier smoke or generate them first.");
+            System.exit(2);
+        }
+        // generate names every puzzle by its size, zero-padded, so name order is size order
+        Arrays.sort(generated);
+        files.addAll(Arrays.asList(generated));
+        return files;
+    }
+
+    /**
+     * Writes one generated puzzle per size in GENERATED_SIZES to dir, each one checked to be fully solved by the solver.
+     * Random puzzles are almost never solved by the solver past 5x5, and it can't solve any line of 0,
+     * so each puzzle starts as a picture whose every column and row is fully determined by its numbers,
+     * then has points knocked out so that some lines need isSolvable.
+     * The most knocked out points that still give a puzzle the solver fully solves are kept.
+     * @param dir directory to write the puzzles to
+     */
+    static void generateCorpus(File dir) throws IOException {
+        dir.mkdirs();
+        Random random = new Random(GENERATED_SEED);
+        PrintStream out = System.out;
+        for (int size : GENERATED_SIZES) {
+            String puzzle = null;
+            int knockouts = size / 4 + 1;
+            while (puzzle == null) {
+                for (int t = 0; t < GENERATE_TRIES && puzzle == null; t++) {
+                    String candidate = generate(random, size, size, knockouts);
+                    File f = new File(dir, String.format("generated-%03dx%03d.nngm", size, size));
+                    Files.writeString(f.toPath(), candidate);
+                    System.setOut(new PrintStream(OutputStream.nullOutputStream()));
+                    try {
+                        Nonogram n = new Nonogram(f);
+                        n.solveNonogram(null, MAX_PASSES);
+                        if (n.isSolved()) { puzzle = candidate; }
+                    } catch (RuntimeException e) {
+                        // the solver can index past the end of a line on some puzzles, so try another one
+                    } finally {
+                        System.setOut(out);
+                    }
+                }
+                if (puzzle == null) {
+                    if (knockouts == 0) {
+                        throw new IllegalStateException("Solver couldn't solve any " + size + "x" + size + " puzzle");
+                    }
+                    knockouts /= 2;
+                }
+            }
+            System.out.println("Wrote " + size + "x" + size + " puzzle with " + knockouts + " knocked out points");
+        }
+    }
+
+    /**
+     * Creates a width x height picture where every column and row is fully determined by its numbers,
+     * by leaving single points empty with no two next to each other and none on the edge,
+     * then empties up to knockouts more random points.
+     * @return the nonogram for the picture, in the format described in nonograms/format.txt
+     */
+    static String generate(Random random, int width, int height, int knockouts) {
+        boolean[][] picture = new boolean[height][width];
+        for (int row = 0; row < height; row++) {
+            Arrays.fill(picture[row], true);
+        }
+        for (int row = 1; row < height - 1; row++) {
+            for (int col = 1; col < width - 1; col++) {
+                if (picture[row - 1][col] && picture[row][col - 1] && random.nextInt(3) == 0) {
+                    picture[row][col] = false;
+                }
+            }
+        }
+        for (int k = 0; k < knockouts; k++) {
+            picture[random.nextInt(height)][random.nextInt(width)] = false;
+        }
+
+        StringBuilder sb = new StringBuilder();
+        sb.append(width).append(",").append(height).append("\n\n");
+        for (int col = 0; col < width; col++) {
+            boolean[] line = new boolean[height];
+            for (int row = 0; row < height; row++) { line[row] = picture[row][col]; }
+            sb.append(clues(line)).append("\n");
+        }
+        sb.append("\n");
+        for (int row = 0; row < height; row++) {
+            sb.append(clues(picture[row])).append("\n");
+        }
+        return sb.toString();
+    }
+
+    // Returns the comma-separated numbers for a line of filled in points, or 0 if none are filled in
+    private static String clues(boolean[] line) {
+        List<String> nums = new ArrayList<String>();
+        int run = 0;
+        for (boolean filled : line) {
+            if (filled) {
+                run++;
+            } else if (run > 0) {
+                nums.add(String.valueOf(run));
+                run = 0;
+            }
+        }
+        if (run > 0) { nums.add(String.valueOf(run)); }
+        return nums.isEmpty() ? "0" : String.join(",", nums);
+    }
+
+    /**
+     * Parses every file once, solves the whole corpus WARMUP_ROUNDS times untimed, then TIMED_ROUNDS times timed.
+     * Each solve is on a fresh copy of the parsed nonogram, and only the solve is timed.
+     * The solver's logging is discarded while solving, but still counts towards time and allocation.
+     * A puzzle counts as solved if its state matches every column and row afterwards,
+     * since solveNonogram can give up on a pass that only finds already solved lines.
+     * @param files the .nngm files to solve
+     * @return the result of the timed runs for each file, in the same order
+     */
+    static List<Result> benchmark(List<File> files) {
+        List<Nonogram> parsed = new ArrayList<Nonogram>();
+        List<Result> results = new ArrayList<Result>();
+        for (File f : files) {
+            parsed.add(new Nonogram(f));
+            Result r = new Result();
+            r.name = f.getName().replace(".nngm", "");
+            r.timeNanos = Long.MAX_VALUE;
+            r.allocatedBytes = Long.MAX_VALUE;
+            results.add(r);
+        }
+
+        PrintStream out = System.out;
+        System.setOut(new PrintStream(OutputStream.nullOutputStream()));
+        try {
+            for (int round = 0; round < WARMUP_ROUNDS + TIMED_ROUNDS; round++) {
+                for (int i = 0; i < parsed.size(); i++) {
+                    Nonogram n = new Nonogram(parsed.get(i));
+                    long isSolvableStart = Nonogram.isSolvableCount;
+                    long allocStart = allocatedBytes();
+                    long start = System.nanoTime();
+                    n.solveNonogram(null, MAX_PASSES);
+                    long time = System.nanoTime() - start;
+                    long allocEnd = allocatedBytes();
+
+                    if (round >= WARMUP_ROUNDS) {
+                        Result r = results.get(i);
+                        r.timeNanos = Math.min(r.timeNanos, time);
+                        r.allocatedBytes = (allocStart < 0) ? -1 : Math.min(r.allocatedBytes, allocEnd - allocStart);
+                        // The solver is deterministic, so these are the same on every run
+                        r.lineSolves = n.lineSolveCount;
+                        r.isSolvableCalls = Nonogram.isSolvableCount - isSolvableStart;
+                        r.passes = n.passCount;
+                        r.solved = n.isSolved();
+                    }
+                }
+            }
+        } finally {
+            System.setOut(out);
+        }
+        return results;
+    }
+
+    // Bytes allocated so far by this thread, or -1 if the JVM can't measure it
+    private static long allocatedBytes() {
+        java.lang.management.ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+        if (bean instanceof com.sun.management.ThreadMXBean) {
+            com.sun.management.ThreadMXBean sunBean = (com.sun.management.ThreadMXBean) bean;
+            if (sunBean.isThreadAllocatedMemorySupported() && sunBean.isThreadAllocatedMemoryEnabled()) {
+                return sunBean.getThreadAllocatedBytes(Thread.currentThread().getId());
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Compares results against the baseline
+     * @return a message for every regression, or an empty list if there are none
+     */
+    static List<String> compare(Map<String, Result> baseline, List<Result> results,
+                                double timeTolerance, long minTimeDeltaNanos, double countTolerance, double allocTolerance) {
+        List<String> regressions = new ArrayList<String>();
+        Set<String> run = new HashSet<String>();
+        for (Result r : results) { run.add(r.name); }
+        for (String name : baseline.keySet()) {
+            if (!run.contains(name)) {
+                regressions.add(name + ": in baseline but wasn't run");
+            }
+        }
+        for (Result r : results) {
+            Result base = baseline.get(r.name);
+            if (base == null) {
+                System.out.println("No baseline for " + r.name + ", skipping it");
+                continue;
+            }
+            if (base.solved && !r.solved) {
+                regressions.add(r.name + ": solved in baseline but not solved now");
+            }
+            if (isRegression(base.timeNanos, r.timeNanos, timeTolerance) && r.timeNanos - base.timeNanos >= minTimeDeltaNanos) {
+                regressions.add(r.name + ": solve time " + (r.timeNanos / 1000) + "us vs baseline " + (base.timeNanos / 1000) + "us");
+            }
+            if (isRegression(base.lineSolves, r.lineSolves, countTolerance)) {
+                regressions.add(r.name + ": " + r.lineSolves + " line solves vs baseline " + base.lineSolves);
+            }
+            if (isRegression(base.isSolvableCalls, r.isSolvableCalls, countTolerance)) {
+                regressions.add(r.name + ": " + r.isSolvableCalls + " isSolvable calls vs baseline " + base.isSolvableCalls);
+            }
+            if (base.allocatedBytes >= 0 && r.allocatedBytes >= 0 && isRegression(base.allocatedBytes, r.allocatedBytes, allocTolerance)) {
+                regressions.add(r.name + ": " + r.allocatedBytes + " bytes allocated vs baseline " + base.allocatedBytes);
+            }
+        }
+        return regressions;
+    }
+
+    private static boolean isRegression(long baseline, long current, double tolerance) {
+        return current > baseline * (1 + tolerance);
+    }
+
+    // Writes results as a JSON object with one puzzle per line, which fromJson reads back
+    static String toJson(String tier, List<Result> results) {
+        StringBuilder sb = new StringBuilder();
+        sb.append("{\n  \"tier\": \"").append(tier).append("\",\n  \"maxPasses\": ").append(MAX_PASSES).append(",\n  \"puzzles\": [\n");
+        for (int i = 0; i < results.size(); i++) {
+            Result r = results.get(i);
+            sb.append("    {\"name\": \"").append(r.name)
+                    .append("\", \"timeNanos\": ").append(r.timeNanos)
+                    .append(", \"lineSolves\": ").append(r.lineSolves)
+                    .append(", \"isSolvableCalls\": ").append(r.isSolvableCalls)
+                    .append(", \"passes\": ").append(r.passes)
+                    .append(", \"allocatedBytes\": ").append(r.allocatedBytes)
+                    .append(", \"solved\": ").append(r.solved)
+                    .append("}").append(i < results.size() - 1 ? "," : "").append("\n");
+        }
+        sb.append("  ]\n}\n");
+        return sb.toString();
+    }
+
+    // Reads the tier written by toJson, or null if there isn't one
+    static String tierOf(String json) {
+        Matcher m = Pattern.compile("\"tier\":\\s*\"([^\"]*)\"").matcher(json);
+        return m.find() ? m.group(1) : null;
+    }
+
+    // Reads the puzzles written by toJson, keyed by name
+    static Map<String, Result> fromJson(String json) {
+        Map<String, Result> results = new HashMap<String, Result>();
+        Pattern name = Pattern.compile("\"name\":\\s*\"([^\"]*)\"");
+        Pattern field = Pattern.compile("\"(\\w+)\":\\s*(-?\\d+|true|false)");
+        for (String line : json.split("\n")) {
+            Matcher nameMatcher = name.matcher(line);
+            if (!nameMatcher.find()) { continue; }
+            Result r = new Result();
+            r.name = nameMatcher.group(1);
+            Matcher fieldMatcher = field.matcher(line);
+            while (fieldMatcher.find()) {
+                String value = fieldMatcher.group(2);
+                switch (fieldMatcher.group(1)) {
+                    case "timeNanos":
+                        r.timeNanos = Long.parseLong(value);
+                        break;
+                    case "lineSolves":
+                        r.lineSolves = Long.parseLong(value);
+                        break;
+                    case "isSolvableCalls":
+                        r.isSolvableCalls = Long.parseLong(value);
+                        break;
+                    case "passes":
+                        r.passes = Long.parseLong(value);
+                        break;
+                    case "allocatedBytes":
+                        r.allocatedBytes = Long.parseLong(value);
+                        break;
+                    case "solved":
+                        r.solved = Boolean.parseBoolean(value);
+                        break;
+                    default:
+                        break;
+                }
+            }
+            results.put(r.name, r);
+        }
+        return results;
+    }
+}
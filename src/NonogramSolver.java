@@ -3,6 +3,11 @@ import java.io.File;
 public class NonogramSolver {
     public static void main(String[] args) {
         Nonogram n = new Nonogram(new File("nonograms/pokeball.nngm"));
+        NonogramVerdict verdict = n.validate();
+        if (!verdict.isValid()) {
+            System.out.println(verdict);
+            System.exit(1);
+        }
         n.solveNonogram();
 
 //        int[] cr = {2, 2};
@@ -0,0 +1,64 @@
+import java.util.ArrayList;
+import java.util.List;
+
+public class NonogramVerdict {
+    /**
+     * The result of Nonogram.validate(), listing every problem that means the nonogram cannot be solved.
+     * A verdict with no problems is valid, although the nonogram may still turn out to be unsolvable.
+     */
+
+    /**
+     * Which check found a problem
+     */
+    public enum Check {
+        HEADER,        // width and height are missing or invalid
+        LINE_COUNT,    // number of columns or rows doesn't match width or height
+        CLUE_FORMAT,   // a column or row isn't a single 0 or a list of positive numbers
+        CLUE_TOTALS,   // columns and rows fill in a different number of points
+        LINE_FITS,     // a column or row is too long for the nonogram
+        CONTRADICTION  // a row and column disagree on a point
+    }
+
+    public static class Problem {
+        final Check check;
+        final String message;
+
+        Problem(Check check, String message) {
+            this.check = check;
+            this.message = message;
+        }
+
+        public Check getCheck() { return check; }
+
+        public String getMessage() { return message; }
+
+        @Override
+        public String toString() {
+            return check + ": " + message;
+        }
+    }
+
+    List<Problem> problems = new ArrayList<Problem>();
+
+    void addProblem(Check check, String message) {
+        problems.add(new Problem(check, message));
+    }
+
+    public boolean isValid() {
+        return problems.isEmpty();
+    }
+
+    public List<Problem> getProblems() {
+        return problems;
+    }
+
+    @Override
+    public String toString() {
+        if (isValid()) { return "Nonogram is valid"; }
+        StringBuilder sb = new StringBuilder("Nonogram is invalid:");
+        for (Problem p : problems) {
+            sb.append("\n").append(p);
+        }
+        return sb.toString();
+    }
+}
@@ -0,0 +1,157 @@
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+
+public class OffHeapGrid {
+    /**
+     * A nonogram state grid stored outside the Java heap, for puzzles too large for a String[][] state.
+     * Every cell takes 2 bits: blank, filled in or crossed out, packed 4 cells to a byte in row-major order.
+     * The bytes are split into chunks of at most 1 GiB, since one ByteBuffer can't hold more than 2 GiB.
+     * The chunks are either direct ByteBuffers, or mappings of one file for grids larger than RAM.
+     * Rows and columns are read and written as the same String arrays the line solvers already use.
+     */
+
+    static final int BLANK = 0;
+    static final int FILLED_IN = 1;
+    static final int CROSSED_OUT = 2;
+    static final int CHUNK_BITS = 30; // each chunk holds 1 << CHUNK_BITS bytes, except maybe the last
+    static final long CHUNK_MASK = (1L << CHUNK_BITS) - 1;
+
+    int width;
+    int height;
+    ByteBuffer[] chunks;
+
+    /**
+     * Creates a blank grid backed by direct ByteBuffers
+     * @param width number of columns
+     * @param height number of rows
+     */
+    public OffHeapGrid(int width, int height) {
+        this.width = width;
+        this.height = height;
+        long bytes = byteCount(width, height);
+        chunks = new ByteBuffer[chunkCount(bytes)];
+        for (int i = 0; i < chunks.length; i++) {
+            chunks[i] = ByteBuffer.allocateDirect(chunkSize(bytes, i));
+        }
+    }
+
+    /**
+     * Creates a blank grid backed by gridFile, which is created or resized as needed and mapped into memory.
+     * Any existing contents of gridFile are cleared.
+     * @param width number of columns
+     * @param height number of rows
+     * @param gridFile file to keep the grid in
+     * @throws IOException if gridFile cannot be opened or mapped
+     */
+    public OffHeapGrid(int width, int height, File gridFile) throws IOException {
+        this.width = width;
+        this.height = height;
+        long bytes = byteCount(width, height);
+        chunks = new ByteBuffer[chunkCount(bytes)];
+        try (RandomAccessFile raf = new RandomAccessFile(gridFile, "rw")) {
+            raf.setLength(0);
+            raf.setLength(bytes);
+            // Mappings stay valid after the channel is closed
+            for (int i = 0; i < chunks.length; i++) {
+                chunks[i] = raf.getChannel().map(FileChannel.MapMode.READ_WRITE, (long) i << CHUNK_BITS, chunkSize(bytes, i));
+            }
+        }
+    }
+
+    // Number of bytes needed to hold width * height cells at 4 cells per byte
+    private static long byteCount(int width, int height) {
+        return ((long) width * height + 3) / 4;
+    }
+
+    private static int chunkCount(long bytes) {
+        return (int) ((bytes + CHUNK_MASK) >> CHUNK_BITS);
+    }
+
+    // Size in bytes of chunk i, when the grid has bytes bytes in total
+    private static int chunkSize(long bytes, int i) {
+        return (int) Math.min(1L << CHUNK_BITS, bytes - ((long) i << CHUNK_BITS));
+    }
+
+    // Returns the 2-bit code of the cell at row, col
+    private int getCode(int row, int col) {
+        long cell = (long) row * width + col;
+        long index = cell >> 2;
+        int b = chunks[(int) (index >> CHUNK_BITS)].get((int) (index & CHUNK_MASK));
+        return (b >> ((int) (cell & 3) * 2)) & 3;
+    }
+
+    // Sets the cell at row, col to the 2-bit code
+    private void setCode(int row, int col, int code) {
+        long cell = (long) row * width + col;
+        long index = cell >> 2;
+        ByteBuffer chunk = chunks[(int) (index >> CHUNK_BITS)];
+        int offset = (int) (index & CHUNK_MASK);
+        int shift = (int) (cell & 3) * 2;
+        int b = chunk.get(offset);
+        chunk.put(offset, (byte) ((b & ~(3 << shift)) | (code << shift)));
+    }
+
+    private static String codeToString(int code) {
+        switch (code) {
+            case FILLED_IN:
+                return Nonogram.filledIn;
+            case CROSSED_OUT:
+                return Nonogram.crossedOut;
+            default:
+                return " ";
+        }
+    }
+
+    private static int stringToCode(String val) {
+        if (val.equals(Nonogram.filledIn)) {
+            return FILLED_IN;
+        } else if (val.equals(Nonogram.crossedOut)) {
+            return CROSSED_OUT;
+        } else {
+            return BLANK;
+        }
+    }
+
+    public String get(int row, int col) {
+        return codeToString(getCode(row, col));
+    }
+
+    public void set(int row, int col, String val) {
+        setCode(row, col, stringToCode(val));
+    }
+
+    // Returns a copy of the rowNum row as a string array
+    public String[] getRow(int rowNum) {
+        String[] row = new String[width];
+        for (int col = 0; col < width; col++) {
+            row[col] = get(rowNum, col);
+        }
+        return row;
+    }
+
+    // Returns a copy of the colNum column as a string array
+    public String[] getCol(int colNum) {
+        String[] col = new String[height];
+        for (int row = 0; row < height; row++) {
+            col[row] = get(row, colNum);
+        }
+        return col;
+    }
+
+    // Sets the rowNum row with the values found in row
+    public void setRow(int rowNum, String[] row) {
+        for (int col = 0; col < width; col++) {
+            set(rowNum, col, row[col]);
+        }
+    }
+
+    // Sets the colNum column with the values found in col
+    public void setCol(int colNum, String[] col) {
+        for (int row = 0; row < height; row++) {
+            set(row, colNum, col[row]);
+        }
+    }
+}